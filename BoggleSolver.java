@@ -14,13 +14,13 @@ import java.util.*;
 class QNode {
     private final int parentSquare;
     private final String prefix;
-    private final Trie parentTrie;
+    private final int parentNode;
     private final int[] seen;
 
-    QNode(int parentSq, String prefix, Trie parentTrie, int[] seen) {
+    QNode(int parentSq, String prefix, int parentNode, int[] seen) {
         this.parentSquare = parentSq;
         this.prefix = prefix;
-        this.parentTrie = parentTrie;
+        this.parentNode = parentNode;
         this.seen = seen;
     }
 
@@ -32,8 +32,8 @@ class QNode {
         return prefix;
     }
 
-    Trie getParentTrie() {
-        return parentTrie;
+    int getParentNode() {
+        return parentNode;
     }
 
     int[] getSeen() {
@@ -41,6 +41,258 @@ class QNode {
     }
 }
 
+/**
+ * Search for words on a batch of boards, walking the trie once for all of
+ * them.
+ *
+ * The letters and adjacency arrays of all boards are held in flat arrays, with
+ * square sq of board b at index b * boardSize + sq.  A path is stored as the
+ * index of its board's first square, the square it ends on, and a bitmap of
+ * the squares it has used.
+ *
+ * All paths ending at the same trie node are extended together.  Each path is
+ * scanned once, writing the neighbours whose letters are children of the node
+ * to a scratch buffer.  These are then bucketed by letter into the buffer for
+ * the next depth, and each bucket is searched recursively.  Buckets keep the
+ * order of their parent paths, so paths stay grouped by board, and each word
+ * is only built once for all of the boards that contain it.
+ */
+class BatchSearch {
+
+    private static final int ALPH = 26;
+
+    private final CompactTrie dict;
+    private final int boardSize;
+    private final int boardCount;
+    // Letter index of each square, or ALPH if not a letter, since bit ALPH is
+    // never set in a trie node's child letters.
+    private final byte[] letters;
+    // Neighbours of square i are adjSq[adjStart[i]] to adjSq[adjStart[i+1]-1].
+    private final int[] adjStart;
+    private final int[] adjSq;
+    private final List<Set<String>> words;
+    private final char[] prefix;
+
+    // Paths at each depth.  At depth d, the paths for letter i are from
+    // start[d][i] up to end[d][i].
+    private final int[][] pathBase;
+    private final int[][] pathSq;
+    private final long[][] pathSeen;
+    private final int[][] start;
+    private final int[][] end;
+
+    // Paths extended from one trie node, before bucketing by letter.
+    private int[] scratchBase;
+    private int[] scratchSq;
+    private long[] scratchSeen;
+    private byte[] scratchLetter;
+
+    /**
+     * @param boards Lower case letters of each board.
+     * @param boardAdj Adjacency arrays of each board.
+     * @param words Set to add the words found on each board to.
+     */
+    BatchSearch(CompactTrie dict, int boardSize, List<char[]> boards,
+                List<int[][]> boardAdj, List<Set<String>> words) {
+        this.dict = dict;
+        this.boardSize = boardSize;
+        this.boardCount = boards.size();
+        this.words = words;
+        this.prefix = new char[boardSize];
+
+        int squares = boardCount * boardSize;
+        letters = new byte[squares];
+        adjStart = new int[squares + 1];
+        int adjCount = 0;
+        for (int b = 0; b < boardCount; ++b) {
+            char[] board = boards.get(b);
+            int[][] adj = boardAdj.get(b);
+            for (int sq = 0; sq < boardSize; ++sq) {
+                int index = board[sq] - 'a';
+                if (index < 0 || index >= ALPH) {
+                    index = ALPH;
+                }
+                letters[b * boardSize + sq] = (byte) index;
+                adjCount += adj[sq].length;
+            }
+        }
+        adjSq = new int[adjCount];
+        int i = 0;
+        for (int b = 0; b < boardCount; ++b) {
+            int[][] adj = boardAdj.get(b);
+            for (int sq = 0; sq < boardSize; ++sq) {
+                adjStart[b * boardSize + sq] = i;
+                System.arraycopy(adj[sq], 0, adjSq, i, adj[sq].length);
+                i += adj[sq].length;
+            }
+        }
+        adjStart[squares] = i;
+
+        int depths = boardSize + 1;
+        pathBase = new int[depths][];
+        pathSq = new int[depths][];
+        pathSeen = new long[depths][];
+        start = new int[depths][ALPH];
+        end = new int[depths][ALPH];
+        // Every square starts a path at depth 1, so that depth and the
+        // scratch buffer start out large enough for all squares.
+        for (int d = 0; d < depths; ++d) {
+            int len = (1 == d) ? squares : 64;
+            pathBase[d] = new int[len];
+            pathSq[d] = new int[len];
+            pathSeen[d] = new long[len];
+        }
+        scratchBase = new int[squares];
+        scratchSq = new int[squares];
+        scratchSeen = new long[squares];
+        scratchLetter = new byte[squares];
+    }
+
+    /**
+     * Find the words on all boards.
+     */
+    void run() {
+        int childBits = dict.childLetters(CompactTrie.ROOT);
+        int n = 0;
+        int used = 0;
+        for (int b = 0; b < boardCount; ++b) {
+            int base = b * boardSize;
+            for (int sq = 0; sq < boardSize; ++sq) {
+                int letter = letters[base + sq];
+                if ((childBits & (1 << letter)) == 0) {
+                    continue;
+                }
+                n = addScratch(n, base, sq, 1L << sq, letter);
+                used |= 1 << letter;
+            }
+        }
+        searchChildren(CompactTrie.ROOT, 0, n, used);
+    }
+
+    /**
+     * Extend the paths at the given depth from first up to last, which all
+     * end at node, by one square.
+     */
+    private void search(int node, int depth, int first, int last) {
+        int childBits = dict.childLetters(node);
+        if (0 == childBits) {
+            return;
+        }
+        int[] base = pathBase[depth];
+        int[] sqs = pathSq[depth];
+        long[] seens = pathSeen[depth];
+        int n = 0;
+        int used = 0;
+        for (int p = first; p < last; ++p) {
+            int b = base[p];
+            long seen = seens[p];
+            int sq = b + sqs[p];
+            for (int a = adjStart[sq], limit = adjStart[sq + 1]; a < limit;
+                 ++a) {
+                int curSq = adjSq[a];
+                long bit = 1L << curSq;
+                if ((seen & bit) != 0) {
+                    continue;
+                }
+                int letter = letters[b + curSq];
+                if ((childBits & (1 << letter)) == 0) {
+                    continue;
+                }
+                n = addScratch(n, b, curSq, seen | bit, letter);
+                used |= 1 << letter;
+            }
+        }
+        searchChildren(node, depth, n, used);
+    }
+
+    /**
+     * Bucket the n extended paths in the scratch buffer by letter into the
+     * next depth, record any words, and search each child node.
+     */
+    private void searchChildren(int node, int depth, int n, int used) {
+        if (0 == n) {
+            return;
+        }
+        int next = depth + 1;
+        int[] first = start[next];
+        int[] fill = end[next];
+        for (int bits = used; bits != 0; bits &= bits - 1) {
+            fill[Integer.numberOfTrailingZeros(bits)] = 0;
+        }
+        for (int p = 0; p < n; ++p) {
+            ++fill[scratchLetter[p]];
+        }
+        int total = 0;
+        for (int bits = used; bits != 0; bits &= bits - 1) {
+            int i = Integer.numberOfTrailingZeros(bits);
+            int count = fill[i];
+            first[i] = total;
+            fill[i] = total;
+            total += count;
+        }
+        if (total > pathBase[next].length) {
+            int len = Math.max(total, pathBase[next].length * 2);
+            pathBase[next] = new int[len];
+            pathSq[next] = new int[len];
+            pathSeen[next] = new long[len];
+        }
+        int[] base = pathBase[next];
+        int[] sqs = pathSq[next];
+        long[] seens = pathSeen[next];
+        for (int p = 0; p < n; ++p) {
+            int f = fill[scratchLetter[p]]++;
+            base[f] = scratchBase[p];
+            sqs[f] = scratchSq[p];
+            seens[f] = scratchSeen[p];
+        }
+
+        for (int bits = used; bits != 0; bits &= bits - 1) {
+            int i = Integer.numberOfTrailingZeros(bits);
+            char c = (char)('a' + i);
+            int child = dict.getChild(node, c);
+            prefix[depth] = c;
+            if (dict.isWord(child)) {
+                addWord(depth + 1, base, first[i], fill[i]);
+            }
+            search(child, next, first[i], fill[i]);
+        }
+    }
+
+    private int addScratch(int n, int base, int sq, long seen, int letter) {
+        if (n == scratchBase.length) {
+            int len = Math.max(64, n * 2);
+            scratchBase = Arrays.copyOf(scratchBase, len);
+            scratchSq = Arrays.copyOf(scratchSq, len);
+            scratchSeen = Arrays.copyOf(scratchSeen, len);
+            scratchLetter = Arrays.copyOf(scratchLetter, len);
+        }
+        scratchBase[n] = base;
+        scratchSq[n] = sq;
+        scratchSeen[n] = seen;
+        scratchLetter[n] = (byte) letter;
+        return n + 1;
+    }
+
+    /**
+     * Add the word in prefix to each board that has a path from first up to
+     * last.
+     */
+    private void addWord(int length, int[] base, int first, int last) {
+        String s = new String(prefix, 0, length);
+        if (s.charAt(0) == 'q') {
+            // Rehydrate q-words with 'u'.
+            s = "qu" + s.substring(1);
+        }
+        int lastBase = -1;
+        for (int p = first; p < last; ++p) {
+            if (base[p] != lastBase) {
+                lastBase = base[p];
+                words.get(lastBase / boardSize).add(s);
+            }
+        }
+    }
+}
+
 /**
  * Class that implements solver algorithm.
  *
@@ -54,7 +306,7 @@ public class BoggleSolver {
     private final int rows;
     private final int cols;
     private final int boardSize;
-    private Trie root;
+    private final CompactTrie dict;
 
     private final int[][] adjacency;
 
@@ -63,7 +315,8 @@ public class BoggleSolver {
      *
      * This creates the internal trie for fast word lookup letter-by-letter.
      * Words that begin with capital letters and words that are not within the
-     * specified length limits are filtered out.
+     * specified length limits are filtered out.  Once loaded, the trie is
+     * packed into a CompactTrie, which is what the solver searches.
      *
      * @param xlen X dimension (width) of board.
      * @param ylen Y dimension (height) of board.
@@ -81,13 +334,15 @@ public class BoggleSolver {
         } else {
             this.adjacency = null;
         }
-        this.root = loadDictionary(wordsFile, boardSize, 3);
+        Trie root = loadDictionary(wordsFile, boardSize, 3);
 
         // If the words file could not be read, indicate that something is
         // wrong and prevent solver from running.
-        if (null == this.root) {
+        if (null == root) {
+            this.dict = null;
             this.boardSize = -1;
         } else {
+            this.dict = new CompactTrie(root);
             this.boardSize = boardSize;
         }
     }
@@ -116,7 +371,7 @@ public class BoggleSolver {
      * grid.
      */
     public Set<String> solve(String grid) {
-        if (null == this.root) {
+        if (null == this.dict) {
             System.err.println("ERROR: failed to read words file");
             return null;
         }
@@ -126,31 +381,27 @@ public class BoggleSolver {
         }
 
         char[] board = grid.toLowerCase().toCharArray();
-        Trie trie = root;
         Set<String> words = new HashSet<String>();
         Queue<QNode> q = new LinkedList<QNode>();
-        int[] adj = new int[8];
-        int[] sqAdj = adj;
-        int adjCount;
+        int[][] boardAdj = prunedAdjacency(board);
         for (int initSq=0; initSq < boardSize; ++initSq) {
             char c = board[initSq];
             int[] seen = {initSq};
             String s = Character.toString(c);
-            QNode qn = new QNode(initSq, s, trie.getChild(c), seen);
+            int initNode = dict.getChild(CompactTrie.ROOT, c);
+            if (initNode == CompactTrie.NONE) {
+                continue;
+            }
+            QNode qn = new QNode(initSq, s, initNode, seen);
             q.offer(qn);
             while (!q.isEmpty()) {
                 qn = q.poll();
                 int parentSq = qn.getParentSquare();
                 String prefix = qn.getPrefix();
-                Trie parentTrie = qn.getParentTrie();
+                int parentNode = qn.getParentNode();
                 seen = qn.getSeen();
-                if (null == adjacency) {
-                    adjCount = calcAdjacency(cols, rows, parentSq, adj);
-                } else {
-                    sqAdj = adjacency[parentSq];
-                    adjCount = sqAdj.length;
-                }
-                for (int a = 0; a < adjCount; ++a) {
+                int[] sqAdj = boardAdj[parentSq];
+                for (int a = 0; a < sqAdj.length; ++a) {
                     int curSq = sqAdj[a];
                     boolean hasCur = false;
                     for (int x : seen) {
@@ -163,8 +414,8 @@ public class BoggleSolver {
                         continue;
                     }
                     c = board[curSq];
-                    Trie curNode = parentTrie.getChild(c);
-                    if (curNode == null) {
+                    int curNode = dict.getChild(parentNode, c);
+                    if (curNode == CompactTrie.NONE) {
                         continue;
                     }
                     s = prefix + c;
@@ -175,7 +426,7 @@ public class BoggleSolver {
                     newSeen[seen.length] = curSq;
                     QNode newNode = new QNode(curSq, s, curNode, newSeen);
                     q.offer(newNode);
-                    if (curNode.ifIsWord()) {
+                    if (dict.isWord(curNode)) {
                         if (s.charAt(0) == 'q') {
                             // Rehydrate q-words with 'u'.
                             words.add("qu" + s.substring(1));
@@ -190,6 +441,60 @@ public class BoggleSolver {
         return words;
     }
 
+    /**
+     * Generate solutions for a batch of boggle grids in one trie traversal.
+     *
+     * Rather than walking the trie separately for each board, the search
+     * carries the set of live paths from every board down the trie together.
+     * Each trie node is visited at most once for the whole batch, and only
+     * while at least one board still has a path spelling its prefix, so
+     * shared prefixes are only walked once.  Paths are kept grouped by board
+     * so that each board's data is touched in order.
+     *
+     * @param grids Array of strings of X*Y characters, each representing the
+     * letters in a boggle grid, from top left to bottom right.
+     *
+     * @return A list holding the set of words found in each grid, in the same
+     * order as the given grids.  An entry is null if its grid is invalid.
+     * None if the words file could not be read.
+     */
+    public List<Set<String>> solveBatch(String[] grids) {
+        if (null == this.dict) {
+            System.err.println("ERROR: failed to read words file");
+            return null;
+        }
+
+        List<Set<String>> results = new ArrayList<Set<String>>(grids.length);
+        // The seen squares of a path are tracked as bits in a long, so larger
+        // boards are solved one at a time.
+        if (boardSize > 64) {
+            for (String grid : grids) {
+                results.add(solve(grid));
+            }
+            return results;
+        }
+
+        List<char[]> boards = new ArrayList<char[]>(grids.length);
+        List<int[][]> boardAdj = new ArrayList<int[][]>(grids.length);
+        List<Set<String>> words = new ArrayList<Set<String>>(grids.length);
+        for (String grid : grids) {
+            if (grid.length() != boardSize) {
+                System.err.println("ERROR: invalid board");
+                results.add(null);
+                continue;
+            }
+            char[] board = grid.toLowerCase().toCharArray();
+            Set<String> boardWords = new HashSet<String>();
+            boards.add(board);
+            boardAdj.add(prunedAdjacency(board));
+            words.add(boardWords);
+            results.add(boardWords);
+        }
+
+        new BatchSearch(dict, boardSize, boards, boardAdj, words).run();
+        return results;
+    }
+
     /**
      * Utility method to print a X by Y boggle grid.
      *
@@ -320,6 +625,48 @@ public class BoggleSolver {
         return adjList;
     }
 
+    /**
+     * Create the adjacency matrix for one board, pruned by the dictionary.
+     *
+     * A neighbour is dropped from a square's adjacency array if the letter on
+     * the neighbour never follows the letter on the square in any dictionary
+     * word, since no path can continue that way.
+     *
+     * @param board Lower case letters of board.
+     *
+     * @return Array of adjacency arrays.
+     */
+    private int[][] prunedAdjacency(char[] board) {
+        int[][] adjList = new int[boardSize][];
+        int[] adj = new int[8];
+
+        for (int sq=0; sq < boardSize; ++sq) {
+            int[] sqAdj = adj;
+            int adjCount;
+            if (null == adjacency) {
+                adjCount = calcAdjacency(cols, rows, sq, adj);
+            } else {
+                sqAdj = adjacency[sq];
+                adjCount = sqAdj.length;
+            }
+            char c = board[sq];
+            int[] pruned = new int[adjCount];
+            int i = 0;
+            for (int a = 0; a < adjCount; ++a) {
+                if (dict.canFollow(c, board[sqAdj[a]])) {
+                    pruned[i++] = sqAdj[a];
+                }
+            }
+            if (i < adjCount) {
+                int[] adjfinal = new int[i];
+                System.arraycopy(pruned, 0, adjfinal, 0, i);
+                pruned = adjfinal;
+            }
+            adjList[sq] = pruned;
+        }
+        return adjList;
+    }
+
     private static int calcAdjacency(int xlim, int ylim, int sq, int[] adj) {
         // Current cell index = y * xlim + x
         int y = sq / xlim;
@@ -0,0 +1,118 @@
+import java.util.*;
+
+/**
+ * A read-only, array-packed copy of a Trie for fast lookup.
+ *
+ * Nodes are numbered in breadth-first order and stored together in a single
+ * int array, so the top levels of the trie, which are visited on nearly every
+ * step of a search, sit next to each other in memory.  The children of a node
+ * are numbered consecutively, so instead of an array of child references each
+ * node only stores a bitmap of the letters it has children for and the index
+ * of its first child.  The index of a child is found from the rank of its
+ * letter in the bitmap.
+ *
+ * Nodes are referred to by index.  The root is node 0, and NONE indicates a
+ * missing node.
+ *
+ * The trie also records which pairs of letters occur consecutively in any
+ * word, so that callers can rule out letter pairs without walking the trie.
+ */
+public class CompactTrie {
+
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    private static final int ALPH = 26;
+    private static final int WORD_BIT = 1 << ALPH;
+    private static final int LETTER_MASK = WORD_BIT - 1;
+
+    // Two ints per node: bitmap of child letters (plus word flag), and index
+    // of first child.
+    private final int[] nodes;
+    // Bitmap, for each letter, of the letters that ever follow it.
+    private final int[] follows;
+
+    /**
+     * Create a compact copy of the given trie.
+     *
+     * @param trie Root of a fully populated trie.
+     */
+    public CompactTrie(Trie trie) {
+        List<Trie> order = new ArrayList<Trie>();
+        List<Integer> letters = new ArrayList<Integer>();
+        order.add(trie);
+        letters.add(NONE);
+        // Appending each node's children as it is visited numbers all nodes
+        // breadth-first, with siblings adjacent.
+        for (int i = 0; i < order.size(); ++i) {
+            Trie t = order.get(i);
+            for (int c = 0; c < ALPH; ++c) {
+                Trie child = t.getChild((char)('a' + c));
+                if (child != null) {
+                    order.add(child);
+                    letters.add(c);
+                }
+            }
+        }
+
+        nodes = new int[order.size() * 2];
+        follows = new int[ALPH];
+        int next = 1;
+        for (int i = 0; i < order.size(); ++i) {
+            Trie t = order.get(i);
+            int bits = 0;
+            for (int c = 0; c < ALPH; ++c) {
+                if (t.getChild((char)('a' + c)) != null) {
+                    bits |= 1 << c;
+                }
+            }
+            if (t.ifIsWord()) {
+                bits |= WORD_BIT;
+            }
+            int letter = letters.get(i);
+            if (letter != NONE) {
+                follows[letter] |= bits & LETTER_MASK;
+            }
+            nodes[2 * i] = bits;
+            nodes[2 * i + 1] = next;
+            next += Integer.bitCount(bits & LETTER_MASK);
+        }
+    }
+
+    /**
+     * Return true if letter b immediately follows letter a in any word.
+     */
+    public boolean canFollow(char a, char b) {
+        int ia = a - 'a';
+        int ib = b - 'a';
+        if (ia < 0 || ia >= ALPH || ib < 0 || ib >= ALPH) {
+            return false;
+        }
+        return (follows[ia] & (1 << ib)) != 0;
+    }
+
+    /**
+     * Return a bitmap of the letters that a node has children for, with bit 0
+     * for 'a' through bit 25 for 'z'.
+     */
+    public int childLetters(int node) {
+        return nodes[2 * node] & LETTER_MASK;
+    }
+
+    public boolean isWord(int node) {
+        return (nodes[2 * node] & WORD_BIT) != 0;
+    }
+
+    public int getChild(int node, char c) {
+        int index = c - 'a';
+        if (index < 0 || index >= ALPH) {
+            return NONE;
+        }
+        int bits = nodes[2 * node];
+        int bit = 1 << index;
+        if ((bits & bit) == 0) {
+            return NONE;
+        }
+        return nodes[2 * node + 1] + Integer.bitCount(bits & (bit - 1));
+    }
+}
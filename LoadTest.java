@@ -0,0 +1,639 @@
+/**
+* Measure BoggleSolver throughput and latency, and check for regressions.
+*
+* This program generates a reproducible set of boards from a random seed,
+* using the 16 dice of a standard Boggle set, and runs the solver over them
+* for a fixed number of boards or a fixed duration.  The solver can be driven
+* sequentially (one solve call per board), in batches (solveBatch), or
+* concurrently from several threads sharing one solver.
+*
+* Throughput, p50/p99/p999 latency of each solver call, and bytes allocated
+* per board are reported and written as JSON.  If a baseline JSON file from a
+* previous run is given, the results are compared against it and the program
+* exits with status 1 if throughput, p50 or p99 latency, or allocation per
+* board is worse than the baseline by more than the tolerance.
+*
+* Display help to see usage infomation: java LoadTest -h
+*
+*/
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class LoadTest {
+
+    private static final String DEFAULT_WORDS="boggle_dict.txt.gz";
+
+    private static final String[] DICE = {
+        "aaeegn", "abbjoo", "achops", "affkps", "aoottw", "cimotu",
+        "deilrx", "delrvy", "distty", "eeghnw", "eeinsu", "ehrtvw",
+        "eiosst", "elrtty", "himnqu", "hlnnrz"};
+
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_REGRESSION = 1;
+    private static final int EXIT_ERROR = 2;
+
+    public static void main(String[] argv) {
+        int xlen = 4;
+        int ylen = 4;
+        String mode = "seq";
+        int boardCount = 1000;
+        int warmupCount = 1000;
+        int durationSec = 0;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int batchSize = 100;
+        double tolerance = 10.0;
+        boolean preCalcAdj = false;
+
+        String usageMsg = "usage: java LoadTest [option].. [-x width] "+
+            "[-y height] [words_file]";
+
+        boolean helpOpt = false;
+        String errMsg = null;
+        String wordsFile = null;
+        String outFile = null;
+        String baselineFile = null;
+
+        try {
+            for (int i=0, argc = argv.length; argc > 0;) {
+                String arg;
+                arg = argv[i++];
+                argc--;
+                if (arg.startsWith("-")) {
+                    if (arg.equals("-h") || arg.equals("--help")) {
+                        helpOpt = true;
+                        continue;
+                    }
+                    if (arg.equals("-p")) {
+                        preCalcAdj = true;
+                        continue;
+                    }
+                    if (0 == argc) {
+                        errMsg = "Missing value for option: "+arg;
+                        break;
+                    }
+                    String val = argv[i++];
+                    argc--;
+                    if (arg.equals("-m")) {
+                        mode = val;
+                    } else if (arg.equals("-n")) {
+                        boardCount = Integer.valueOf(val);
+                    } else if (arg.equals("-w")) {
+                        warmupCount = Integer.valueOf(val);
+                    } else if (arg.equals("-d")) {
+                        durationSec = Integer.valueOf(val);
+                    } else if (arg.equals("-s")) {
+                        seed = Long.valueOf(val);
+                    } else if (arg.equals("-t")) {
+                        threads = Integer.valueOf(val);
+                    } else if (arg.equals("-B")) {
+                        batchSize = Integer.valueOf(val);
+                    } else if (arg.equals("-o")) {
+                        outFile = val;
+                    } else if (arg.equals("-c")) {
+                        baselineFile = val;
+                    } else if (arg.equals("-T")) {
+                        tolerance = Double.valueOf(val);
+                    } else if (arg.equals("-x")) {
+                        xlen = Integer.valueOf(val);
+                    } else if (arg.equals("-y")) {
+                        ylen = Integer.valueOf(val);
+                    } else {
+                        errMsg = "Unknown option: "+arg;
+                        break;
+                    }
+                } else {
+                    wordsFile = arg;
+                }
+            }
+        } catch (NumberFormatException e) {
+            errMsg = "Invalid number: "+e.getMessage();
+        }
+
+        if (errMsg == null && !mode.equals("seq") && !mode.equals("batch") &&
+            !mode.equals("conc")) {
+            errMsg = "Unknown mode: "+mode;
+        }
+        if (errMsg == null && (boardCount < 1 || threads < 1 ||
+                               batchSize < 1 || warmupCount < 0 ||
+                               durationSec < 0 || tolerance < 0)) {
+            errMsg = "Option values must not be negative or zero";
+        }
+
+        if (errMsg != null) {
+            System.err.println(errMsg);
+            System.err.println(usageMsg);
+            System.err.println("Try 'java LoadTest -h' for more information.");
+            System.exit(EXIT_ERROR);
+        }
+
+        if (helpOpt) {
+            System.out.println(usageMsg);
+            System.out.println(
+                "-B size  : boards per solveBatch call in batch mode\n"+
+                "-c file  : baseline JSON file to compare results against\n"+
+                "-d secs  : run for this many seconds instead of -n boards\n"+
+                "-h       : print this help message and exit (also --help)\n"+
+                "-m mode  : seq, batch, or conc (concurrent)\n"+
+                "-n count : number of distinct boards to generate and solve\n"+
+                "-o file  : file to write JSON results to\n"+
+                "-p       : pre-calculate adjacency matrix\n"+
+                "-s seed  : random seed for generating boards\n"+
+                "-t num   : number of threads in conc mode\n"+
+                "-T pct   : percent worse than baseline allowed\n"+
+                "-w count : number of boards solved before measuring\n"+
+                "-x len   : Width (X-length) of board.\n"+
+                "-y len   : Height (Y-length) of board.\n"+
+                "\nDefault values:\n"+
+                "-m seq -n 1000 -w 1000 -s 1 -B 100 -T 10\n"+
+                "If -t is not specified, then use one thread per CPU.\n"+
+                "If -o is not specified, then JSON is written to stdout.\n"+
+                "All other output is written to stderr.\n"+
+                "Latencies are kept in a fixed-size histogram, so memory use\n"+
+                "does not grow with -d, and percentiles are within 1%.\n"+
+                "If no words file is given, then use "+DEFAULT_WORDS+"\n"+
+                "\nExit status is 1 if results regressed from the baseline, "+
+                "and 2 on error.");
+            return;
+        }
+
+        if (wordsFile == null) {
+            wordsFile = DEFAULT_WORDS;
+        }
+
+        // Keep stdout for the JSON results only, so that it can be saved as a
+        // baseline.  Everything else, including the messages the solver
+        // prints while loading its dictionary, goes to stderr.
+        PrintStream stdout = System.out;
+        System.setOut(System.err);
+
+        if (mode.equals("conc") == false) {
+            threads = 1;
+        }
+        boolean useBatch = mode.equals("batch");
+        if (useBatch == false) {
+            batchSize = 1;
+        }
+
+        Map<String, Object> stats = new LinkedHashMap<String, Object>();
+        stats.put("mode", mode);
+        stats.put("seed", seed);
+        stats.put("width", xlen);
+        stats.put("height", ylen);
+        stats.put("threads", threads);
+        stats.put("batch_size", batchSize);
+        stats.put("board_count", boardCount);
+        stats.put("duration_sec", durationSec);
+        stats.put("warmup", warmupCount);
+        stats.put("precalc_adjacency", preCalcAdj);
+        stats.put("words_file", wordsFile);
+
+        // Check the baseline before doing any work, so that a missing or
+        // mismatched baseline does not waste a long run.
+        String baseline = null;
+        if (baselineFile != null) {
+            baseline = readBaseline(baselineFile);
+            if (baseline == null || !sameSettings(stats, baseline)) {
+                System.exit(EXIT_ERROR);
+            }
+        }
+
+        BoggleSolver solver = new BoggleSolver(xlen, ylen, wordsFile,
+                                               preCalcAdj);
+        System.out.println();
+        if (-1 == solver.boardSize()) {
+            System.exit(EXIT_ERROR);
+        }
+
+        String[] boards = generateBoards(solver.boardSize(), boardCount,
+                                         seed);
+
+        // Warm up the JIT on boards not used in the measured run.
+        if (warmupCount > 0) {
+            System.out.format("warming up with %d boards...\n", warmupCount);
+            String[] warmup = generateBoards(solver.boardSize(), warmupCount,
+                                             ~seed);
+            runWorkers(solver, warmup, 0, threads, batchSize, useBatch);
+        }
+
+        System.out.format("running %s mode...\n", mode);
+        Result result = runWorkers(solver, boards, durationSec, threads,
+                                   batchSize, useBatch);
+
+        stats.put("boards", result.boards);
+        stats.put("words", result.words);
+        stats.put("elapsed_ms", result.elapsedNanos / 1e6);
+        stats.put("throughput", result.boards * 1e9 / result.elapsedNanos);
+        stats.put("p50_us", result.latencies.percentile(50.0) / 1e3);
+        stats.put("p99_us", result.latencies.percentile(99.0) / 1e3);
+        stats.put("p999_us", result.latencies.percentile(99.9) / 1e3);
+        if (result.allocBytes < 0) {
+            stats.put("alloc_bytes_per_board", -1);
+        } else {
+            stats.put("alloc_bytes_per_board",
+                      (double) result.allocBytes / result.boards);
+        }
+
+        System.out.format("Solved %d boards (%d words) in %.2f msec: "+
+                          "%.1f boards/sec\n", result.boards, result.words,
+                          result.elapsedNanos / 1e6, stats.get("throughput"));
+        System.out.format("Latency per call: p50 %.1f us, p99 %.1f us, "+
+                          "p999 %.1f us\n", stats.get("p50_us"),
+                          stats.get("p99_us"), stats.get("p999_us"));
+
+        String json = toJson(stats);
+        if (outFile == null) {
+            stdout.println(json);
+            stdout.flush();
+        } else {
+            try {
+                Writer out = new FileWriter(outFile);
+                out.write(json);
+                out.write("\n");
+                out.close();
+            } catch (IOException e) {
+                System.err.println("ERROR: unable to write results file: " +
+                                   outFile);
+                System.exit(EXIT_ERROR);
+            }
+        }
+
+        if (baseline != null) {
+            System.exit(compare(stats, baseline, baselineFile, tolerance));
+        }
+    }
+
+    /**
+     * Totals collected from a run.
+     */
+    private static class Result {
+        long boards;
+        long words;
+        long elapsedNanos;
+        long allocBytes;
+        Histogram latencies = new Histogram();
+    }
+
+    /**
+     * Fixed-size histogram of latencies in nanoseconds.
+     *
+     * Each power-of-two range of values is split into 64 equal buckets, so a
+     * bucket is never wider than 1/64 of the values in it and percentiles are
+     * accurate to within 1%, however many values are recorded.
+     */
+    private static class Histogram {
+        private static final int SUB_BITS = 7;
+        private static final int SUB_COUNT = 1 << SUB_BITS;
+
+        private final long[] counts =
+            new long[(64 - SUB_BITS + 1) * SUB_COUNT];
+        private long total;
+
+        void record(long value) {
+            value = Math.max(0, value);
+            int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) -
+                                 SUB_BITS);
+            counts[(shift << SUB_BITS) + (int) (value >>> shift)]++;
+            total++;
+        }
+
+        void add(Histogram other) {
+            for (int i = 0; i < counts.length; ++i) {
+                counts[i] += other.counts[i];
+            }
+            total += other.total;
+        }
+
+        /**
+         * Return the middle of the bucket holding the value at the given
+         * percentile.
+         */
+        double percentile(double pct) {
+            if (0 == total) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(pct / 100.0 * total));
+            long seen = 0;
+            int i = 0;
+            for (; i < counts.length - 1; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    break;
+                }
+            }
+            int shift = i >>> SUB_BITS;
+            long low = (long) (i & (SUB_COUNT - 1)) << shift;
+            return low + ((1L << shift) - 1) / 2.0;
+        }
+    }
+
+    /**
+     * Solve boards from several threads until all boards are solved, or until
+     * the duration has elapsed if it is non-zero.
+     *
+     * Each thread takes the next batchSize boards in turn, wrapping around to
+     * the start of the boards in duration mode.  If useBatch is true, each
+     * batch is solved with one call to solveBatch, even if batchSize is 1.
+     * Otherwise batchSize must be 1, and solve is called.
+     */
+    private static Result runWorkers(final BoggleSolver solver,
+                                     final String[] boards, int durationSec,
+                                     int threads, final int batchSize,
+                                     final boolean useBatch) {
+        final AtomicInteger next = new AtomicInteger();
+        final long limit;
+        if (durationSec > 0) {
+            limit = Long.MAX_VALUE;
+        } else {
+            limit = boards.length;
+        }
+
+        List<Callable<Result>> workers = new ArrayList<Callable<Result>>();
+        for (int t = 0; t < threads; ++t) {
+            workers.add(new Callable<Result>() {
+                public Result call() {
+                    return runWorker(solver, boards, next, limit, batchSize,
+                                     useBatch);
+                }
+            });
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Result total = new Result();
+        long start = System.nanoTime();
+        try {
+            List<Future<Result>> futures = new ArrayList<Future<Result>>();
+            for (Callable<Result> w : workers) {
+                futures.add(pool.submit(w));
+            }
+            if (durationSec > 0) {
+                // Stop handing out boards once the duration has elapsed.
+                long deadline = start + durationSec * 1000000000L;
+                while (System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+                next.set(Integer.MIN_VALUE);
+            }
+            for (Future<Result> f : futures) {
+                Result r = f.get();
+                total.boards += r.boards;
+                total.words += r.words;
+                if (r.allocBytes < 0 || total.allocBytes < 0) {
+                    total.allocBytes = -1;
+                } else {
+                    total.allocBytes += r.allocBytes;
+                }
+                total.latencies.add(r.latencies);
+            }
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        total.elapsedNanos = System.nanoTime() - start;
+        return total;
+    }
+
+    private static Result runWorker(BoggleSolver solver, String[] boards,
+                                    AtomicInteger next, long limit,
+                                    int batchSize, boolean useBatch) {
+        // The histogram is allocated with the result, so recording latencies
+        // allocates nothing while allocation is being measured.
+        Result r = new Result();
+        String[] batch = new String[batchSize];
+        long allocStart = allocatedBytes();
+
+        while (true) {
+            int first = next.getAndAdd(batchSize);
+            if (first < 0 || first >= limit) {
+                break;
+            }
+            int count = (int) Math.min(batchSize, limit - first);
+            long words = 0;
+            long start;
+            long elapsed;
+            if (!useBatch) {
+                String grid = boards[first % boards.length];
+                start = System.nanoTime();
+                words = solver.solve(grid).size();
+                elapsed = System.nanoTime() - start;
+            } else {
+                if (count != batch.length) {
+                    batch = new String[count];
+                }
+                for (int i = 0; i < count; ++i) {
+                    batch[i] = boards[(first + i) % boards.length];
+                }
+                start = System.nanoTime();
+                List<Set<String>> results = solver.solveBatch(batch);
+                elapsed = System.nanoTime() - start;
+                for (Set<String> s : results) {
+                    words += s.size();
+                }
+            }
+            r.latencies.record(elapsed);
+            r.boards += count;
+            r.words += words;
+        }
+
+        long allocEnd = allocatedBytes();
+        if (allocStart < 0 || allocEnd < 0) {
+            r.allocBytes = -1;
+        } else {
+            r.allocBytes = allocEnd - allocStart;
+        }
+        return r;
+    }
+
+    /**
+     * Return bytes allocated by the current thread, or -1 if the JVM does not
+     * support measuring it.
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean =
+            ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean =
+                (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() &&
+                sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(
+                    Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Generate boards by rolling and shuffling Boggle dice.
+     *
+     * Boards larger than 4x4 reuse the set of dice as many times as needed.
+     */
+    private static String[] generateBoards(int boardSize, int count,
+                                           long seed) {
+        Random rand = new Random(seed);
+        String[] boards = new String[count];
+        List<String> dice = new ArrayList<String>(boardSize);
+        for (int i = 0; i < boardSize; ++i) {
+            dice.add(DICE[i % DICE.length]);
+        }
+        for (int b = 0; b < count; ++b) {
+            Collections.shuffle(dice, rand);
+            StringBuilder grid = new StringBuilder(boardSize);
+            for (String die : dice) {
+                grid.append(die.charAt(rand.nextInt(die.length())));
+            }
+            boards[b] = grid.toString();
+        }
+        return boards;
+    }
+
+    private static String toJson(Map<String, Object> stats) {
+        StringBuilder json = new StringBuilder("{");
+        for (Map.Entry<String, Object> e : stats.entrySet()) {
+            if (json.length() > 1) {
+                json.append(",");
+            }
+            json.append("\n  \"").append(e.getKey()).append("\": ");
+            Object v = e.getValue();
+            if (v instanceof String) {
+                json.append("\"").append(jsonEscape((String) v)).append("\"");
+            } else if (v instanceof Double) {
+                json.append(String.format(Locale.ROOT, "%.3f", v));
+            } else {
+                json.append(v);
+            }
+        }
+        json.append("\n}");
+        return json.toString();
+    }
+
+    private static String jsonEscape(String s) {
+        return s.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    /**
+     * Read the numeric, boolean or string value of a top-level key from JSON
+     * written by toJson.  String values are returned still escaped.
+     */
+    private static String jsonValue(String json, String key) {
+        Pattern p = Pattern.compile(
+            "\"" + Pattern.quote(key) + "\"\\s*:\\s*" +
+            "(\"(?:[^\"\\\\]|\\\\.)*\"|true|false|[-0-9.eE+]+)");
+        Matcher m = p.matcher(json);
+        if (!m.find()) {
+            return null;
+        }
+        String v = m.group(1);
+        if (v.startsWith("\"")) {
+            v = v.substring(1, v.length() - 1);
+        }
+        return v;
+    }
+
+    /**
+     * Return the contents of a baseline file, or null if it cannot be read.
+     */
+    private static String readBaseline(String baselineFile) {
+        try {
+            BufferedReader in = new BufferedReader(
+                new FileReader(baselineFile));
+            StringBuilder sb = new StringBuilder();
+            String line;
+            while ((line = in.readLine()) != null) {
+                sb.append(line).append("\n");
+            }
+            in.close();
+            return sb.toString();
+        } catch (IOException e) {
+            System.err.println("ERROR: unable to read baseline file: " +
+                               baselineFile);
+            return null;
+        }
+    }
+
+    /**
+     * Return true if the baseline was run with the same settings, since
+     * results are only comparable if the same work was done.
+     */
+    private static boolean sameSettings(Map<String, Object> stats,
+                                        String json) {
+        String[] sameKeys = {"mode", "seed", "width", "height", "threads",
+                             "batch_size", "board_count", "duration_sec",
+                             "warmup", "precalc_adjacency", "words_file"};
+        for (String key : sameKeys) {
+            String base = jsonValue(json, key);
+            String cur = jsonEscape(stats.get(key).toString());
+            if (base == null || !base.equals(cur)) {
+                System.err.format("ERROR: baseline %s is %s, not %s\n", key,
+                                  base, stats.get(key));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compare results with a baseline whose settings have been checked.
+     *
+     * @return Exit status: 0 if within tolerance, 1 if regressed.
+     */
+    private static int compare(Map<String, Object> stats, String json,
+                               String baselineFile, double tolerance) {
+        // Higher is better for throughput, lower is better for the rest.
+        String[] higherKeys = {"throughput"};
+        String[] lowerKeys = {"p50_us", "p99_us", "alloc_bytes_per_board"};
+        boolean regressed = false;
+        System.out.format("\nComparing with baseline %s (tolerance %.1f%%):\n",
+                          baselineFile, tolerance);
+        for (String key : higherKeys) {
+            regressed |= compareValue(stats, json, key, tolerance, true);
+        }
+        for (String key : lowerKeys) {
+            regressed |= compareValue(stats, json, key, tolerance, false);
+        }
+        if (regressed) {
+            System.out.println("FAIL: results regressed from baseline");
+            return EXIT_REGRESSION;
+        }
+        System.out.println("PASS: results within tolerance of baseline");
+        return EXIT_OK;
+    }
+
+    private static boolean compareValue(Map<String, Object> stats,
+                                        String json, String key,
+                                        double tolerance, boolean higher) {
+        String baseStr = jsonValue(json, key);
+        double cur = ((Number) stats.get(key)).doubleValue();
+        if (baseStr == null || cur < 0) {
+            System.out.format("  %-22s skipped\n", key);
+            return false;
+        }
+        double base = Double.valueOf(baseStr);
+        if (base < 0) {
+            System.out.format("  %-22s skipped\n", key);
+            return false;
+        }
+        double change = 0;
+        if (base != 0) {
+            change = (cur - base) / base * 100.0;
+        }
+        boolean worse;
+        if (higher) {
+            worse = change < -tolerance;
+        } else {
+            worse = change > tolerance;
+        }
+        System.out.format("  %-22s %12.3f -> %12.3f (%+.1f%%)%s\n", key, base,
+                          cur, change, worse ? "  REGRESSED" : "");
+        return worse;
+    }
+}